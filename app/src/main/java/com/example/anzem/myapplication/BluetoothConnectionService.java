@@ -10,6 +10,8 @@ import android.content.Intent;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
+import com.example.anzem.myapplication.metrics.PipelineMetrics;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -30,7 +32,11 @@ public class BluetoothConnectionService {
 
     private AcceptThread mInsecureAcceptThread;
     private ConnectThread mConnectThread;
-    private ConnectedThread mConnectedThread;
+    private volatile ConnectedThread mConnectedThread;
+    private volatile FeedbackChannel mFeedbackChannel;
+    private volatile boolean mIdle = false;
+    /** Last sensor rate requested from the EV3, 0 if none was requested yet. */
+    private volatile int mSensorRate = 0;
     private BluetoothDevice mmDevice;
     private UUID deviceUUID;
     private ProgressDialog mProgressDialog;
@@ -167,6 +173,7 @@ public class BluetoothConnectionService {
         private final BluetoothSocket mmSocket;
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
+        private final FeedbackChannel mmFeedbackChannel;
 
         public ConnectedThread(BluetoothSocket socket)
         {
@@ -185,6 +192,7 @@ public class BluetoothConnectionService {
 
             mmInStream = tmpIn;
             mmOutStream = tmpOut;
+            mmFeedbackChannel = mmOutStream != null ? new FeedbackChannel(mmOutStream) : null;
         }
 
         public void run()
@@ -192,21 +200,50 @@ public class BluetoothConnectionService {
             byte[] buffer = new byte[1024];
             int bytes;
 
+            if (mmFeedbackChannel != null) {
+                mmFeedbackChannel.setIdle(mIdle);
+                mmFeedbackChannel.start();
+                mFeedbackChannel = mmFeedbackChannel;
+
+                // a reconnected EV3 starts at its default rate, repeat the last request
+                int sensorRate = mSensorRate;
+                if (sensorRate > 0) {
+                    mmFeedbackChannel.sendStatus(FeedbackChannel.STATUS_RATE, "R;" + sensorRate);
+                }
+            }
+
             while(true)
             {
                 try
                 {
                     bytes = mmInStream.read(buffer);
+                    if (bytes < 0) {
+                        Log.d(TAG, "run: ConnectedThread reached end of stream.");
+                        break;
+                    }
+                    PipelineMetrics.SOCKET_READS.increment();
+                    PipelineMetrics.BYTES_READ.add(bytes);
                     String incomingMessage = new String(buffer, 0, bytes);
 
                     Intent incomingMessageIntent = new Intent("incomingMessage");
                     incomingMessageIntent.putExtra("theMessage", incomingMessage);
+                    incomingMessageIntent.putExtra("theTimestamp", System.nanoTime());
                     LocalBroadcastManager.getInstance(mContext).sendBroadcast(incomingMessageIntent);
                 } catch (IOException e) {
                     e.printStackTrace();
                     break;
                 }
             }
+            // a stale thread must not report a newer connection as lost
+            if (mConnectedThread == this) {
+                PipelineMetrics.CONNECTED.set(0);
+            }
+            if (mmFeedbackChannel != null) {
+                if (mFeedbackChannel == mmFeedbackChannel) {
+                    mFeedbackChannel = null;
+                }
+                mmFeedbackChannel.cancel();
+            }
         }
 
 
@@ -216,8 +253,53 @@ public class BluetoothConnectionService {
     private void connected(BluetoothSocket mmSocket, BluetoothDevice mmDevice) {
         Log.d(TAG, "connected: Starting.");
 
+        if (mConnectedThread != null) {
+            PipelineMetrics.RECONNECTS.increment();
+        }
+        PipelineMetrics.CONNECTED.set(1);
+
         mConnectedThread = new ConnectedThread(mmSocket);
         mConnectedThread.start();
     }
-    
+
+    /**
+     * Sends a status update to the connected EV3, replacing a pending update of the same kind.
+     * Does nothing when no EV3 is connected.
+     * @param slot status slot, see {@link FeedbackChannel}.
+     * @param line message without the line terminator.
+     */
+    public void sendStatus(int slot, String line) {
+        FeedbackChannel channel = mFeedbackChannel;
+        if (channel != null) {
+            channel.sendStatus(slot, line);
+        }
+    }
+
+    /**
+     * Queues a message for the connected EV3. Does nothing when no EV3 is connected.
+     * @param line message without the line terminator.
+     */
+    public void send(String line) {
+        FeedbackChannel channel = mFeedbackChannel;
+        if (channel != null) {
+            channel.send(line);
+        }
+    }
+
+    /**
+     * Asks the connected EV3 to change its sensor rate and switches the feedback channel
+     * between normal and idle mode. The request is repeated on every new connection. The EV3
+     * may confirm it by sending back {@code R;<frames per second>}.
+     * @param sensorRate requested rate in frames per second.
+     * @param idle true when entering idle mode.
+     */
+    public void requestSensorRate(int sensorRate, boolean idle) {
+        mIdle = idle;
+        mSensorRate = sensorRate;
+        FeedbackChannel channel = mFeedbackChannel;
+        if (channel != null) {
+            channel.setIdle(idle);
+            channel.sendStatus(FeedbackChannel.STATUS_RATE, "R;" + sensorRate);
+        }
+    }
 }
@@ -0,0 +1,191 @@
+package com.example.anzem.myapplication;
+
+import android.util.Log;
+
+import com.example.anzem.myapplication.metrics.PipelineMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Outbound command channel to the EV3.
+ * <p />
+ * Messages are newline terminated text lines. Status updates are kept in one slot per kind, so a
+ * newer update replaces one that has not been sent yet. Other messages go to a bounded queue and
+ * are dropped when it is full. A dedicated writer thread sends everything pending in a single
+ * write, so callers never wait for the Bluetooth link.
+ * <p />
+ * Status lines: {@code N;<midi note or -1>}, {@code T;<arm position>},
+ * {@code H;<socket reads>;<frames dropped>} and {@code R;<frames per second>}, which asks the
+ * EV3 to change its sensor rate. The EV3 may confirm the rate it switched to with the same
+ * {@code R;} line.
+ * <p />
+ * Queued messages: {@code L;<RECORDING|PLAYING|IDLE>} on every phrase looper transition.
+ */
+public class FeedbackChannel {
+    private static final String TAG = "FeedbackChannel";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /** Status slot for the currently played note. */
+    public static final int STATUS_NOTE = 0;
+    /** Status slot for the current arm position. */
+    public static final int STATUS_TUNING = 1;
+    /** Status slot for the connection health. */
+    public static final int STATUS_HEALTH = 2;
+    /** Status slot for the requested sensor rate. */
+    public static final int STATUS_RATE = 3;
+    private static final int STATUS_SLOTS = 4;
+
+    /** Maximum number of queued non-status messages. */
+    private static final int QUEUE_CAPACITY = 64;
+    /** Maximum time between two health reports. */
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** Maximum time between two health reports in idle mode. */
+    private static final long IDLE_HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final AtomicReferenceArray<String> mStatus = new AtomicReferenceArray<>(STATUS_SLOTS);
+    private final ArrayBlockingQueue<String> mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final WriterThread mWriterThread;
+    private volatile long mHeartbeatNanos = HEARTBEAT_NANOS;
+
+    /**
+     * Constructs a new channel. Call {@link #start()} to begin sending.
+     * @param outStream stream of the connected socket.
+     */
+    public FeedbackChannel(OutputStream outStream) {
+        mWriterThread = new WriterThread(outStream);
+    }
+
+    public void start()
+    {
+        mWriterThread.start();
+    }
+
+    public void cancel()
+    {
+        mWriterThread.cancel();
+    }
+
+    /** @return true while the writer thread is running. */
+    boolean isWriterAlive()
+    {
+        return mWriterThread.isAlive();
+    }
+
+    /**
+     * Stretches the health heartbeat while idle so the writer thread stays parked.
+     * @param idle true when entering idle mode.
+     */
+    public void setIdle(boolean idle)
+    {
+        mHeartbeatNanos = idle ? IDLE_HEARTBEAT_NANOS : HEARTBEAT_NANOS;
+        LockSupport.unpark(mWriterThread);
+    }
+
+    /**
+     * Sets a status line, replacing any pending update of the same kind. Never blocks.
+     * @param slot one of the {@code STATUS_} slots.
+     * @param line message without the line terminator.
+     */
+    public void sendStatus(int slot, String line)
+    {
+        if (mStatus.getAndSet(slot, line) != null) {
+            PipelineMetrics.FEEDBACK_COALESCED.increment();
+        }
+        LockSupport.unpark(mWriterThread);
+    }
+
+    /**
+     * Queues a message. Never blocks; the message is dropped if the queue is full.
+     * @param line message without the line terminator.
+     * @return false if the message was dropped.
+     */
+    public boolean send(String line)
+    {
+        if (!mQueue.offer(line)) {
+            PipelineMetrics.FEEDBACK_DROPPED.increment();
+            return false;
+        }
+        LockSupport.unpark(mWriterThread);
+        return true;
+    }
+
+    /**
+     * This thread batches pending messages and writes them to the socket.
+     */
+    private class WriterThread extends Thread {
+        private final OutputStream mmOutStream;
+        private final ByteArrayOutputStream mmBatch = new ByteArrayOutputStream(256);
+        private volatile boolean running = true;
+
+        WriterThread(OutputStream outStream)
+        {
+            super(TAG);
+            mmOutStream = outStream;
+        }
+
+        public void run()
+        {
+            long nextHeartbeat = System.nanoTime();
+
+            while (running) {
+                long now = System.nanoTime();
+                long heartbeat = mHeartbeatNanos;
+                if (nextHeartbeat - now > heartbeat) {
+                    nextHeartbeat = now + heartbeat;
+                }
+                if (now - nextHeartbeat >= 0) {
+                    mStatus.compareAndSet(STATUS_HEALTH, null, "H;"
+                            + PipelineMetrics.SOCKET_READS.get() + ";"
+                            + PipelineMetrics.DROPPED_FRAMES.get());
+                    nextHeartbeat = now + heartbeat;
+                }
+
+                mmBatch.reset();
+                for (int slot = 0; slot < STATUS_SLOTS; slot++) {
+                    String line = mStatus.getAndSet(slot, null);
+                    if (line != null) {
+                        append(line);
+                    }
+                }
+                String line;
+                while ((line = mQueue.poll()) != null) {
+                    append(line);
+                }
+
+                if (mmBatch.size() == 0) {
+                    LockSupport.parkNanos(this, nextHeartbeat - now);
+                    continue;
+                }
+
+                try {
+                    mmBatch.writeTo(mmOutStream);
+                    mmOutStream.flush();
+                    PipelineMetrics.FEEDBACK_WRITES.increment();
+                } catch (IOException e) {
+                    Log.d(TAG, "run: IOException: " + e.getMessage());
+                    break;
+                }
+            }
+        }
+
+        private void append(String line)
+        {
+            byte[] bytes = line.getBytes(ASCII);
+            mmBatch.write(bytes, 0, bytes.length);
+            mmBatch.write('\n');
+        }
+
+        public void cancel()
+        {
+            running = false;
+            LockSupport.unpark(this);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.anzem.myapplication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects when nobody is playing and decides the sensor rate requested from the EV3.
+ * <p />
+ * The guitar is idle when no pick was seen and the neck slider stayed within
+ * {@link #NECK_TOLERANCE} of the same position for {@link #IDLE_TIMEOUT_NANOS}. The first pick
+ * after that switches back to full rate, and the time from receiving that frame to the first
+ * played note is reported.
+ */
+public class IdleController {
+
+    /**
+     * Receiver of power mode changes.
+     */
+    public interface Listener {
+        /**
+         * Called when the guitar becomes idle or active again.
+         * @param idle true when entering idle mode.
+         * @param sensorRate sensor rate to request from the EV3, in frames per second.
+         */
+        void onIdleChanged(boolean idle, int sensorRate);
+
+        /**
+         * Called with the latency of the first note played after idle mode.
+         * @param nanos time from receiving the waking frame to the note being played.
+         */
+        void onFirstNoteAfterIdle(long nanos);
+    }
+
+    /** Sensor rate while playing, in frames per second. */
+    public static final int FULL_RATE = 50;
+    /** Sensor rate while idle, in frames per second. */
+    public static final int IDLE_RATE = 5;
+
+    /** Time without activity after which the guitar is considered idle. */
+    static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    /** Neck movement smaller than this does not count as activity. */
+    private static final int NECK_TOLERANCE = 2;
+
+    private final Listener listener;
+
+    private boolean idle = false;
+    private boolean hasNeckReference = false;
+    private int neckReference;
+    private long lastActivityNanos;
+    private long wakeFrameNanos = -1;
+
+    /**
+     * Constructs a new controller.
+     * @param listener receiver of power mode changes.
+     */
+    public IdleController(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** @return true while in idle mode. */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Updates the controller with a received frame.
+     * @param distance received slider distance on guitar neck.
+     * @param played is the guitar "string" being "plucked".
+     * @param receivedNanos {@link System#nanoTime()} at which the frame was read.
+     */
+    public void onFrame(int distance, boolean played, long receivedNanos) {
+        boolean neckMoved = false;
+        if (!hasNeckReference) {
+            // the idle timer starts with the first frame, not when the app starts
+            hasNeckReference = true;
+            neckReference = distance;
+            lastActivityNanos = receivedNanos;
+        } else if (Math.abs(distance - neckReference) > NECK_TOLERANCE) {
+            neckMoved = true;
+            neckReference = distance;
+        }
+
+        if (played) {
+            lastActivityNanos = receivedNanos;
+            if (idle) {
+                idle = false;
+                wakeFrameNanos = receivedNanos;
+                listener.onIdleChanged(false, FULL_RATE);
+            }
+        } else if (neckMoved) {
+            // moving the neck counts as activity only while active, only a pick leaves idle mode
+            if (!idle) {
+                lastActivityNanos = receivedNanos;
+            }
+        } else if (!idle && receivedNanos - lastActivityNanos >= IDLE_TIMEOUT_NANOS) {
+            idle = true;
+            wakeFrameNanos = -1;
+            listener.onIdleChanged(true, IDLE_RATE);
+        }
+    }
+
+    /**
+     * Counts as activity without a frame, e.g. while the phrase looper records or plays and the
+     * next pick has to be on time. Leaves idle mode immediately if needed.
+     * @param nowNanos current {@link System#nanoTime()}.
+     */
+    public void keepAwake(long nowNanos) {
+        lastActivityNanos = nowNanos;
+        if (idle) {
+            idle = false;
+            wakeFrameNanos = -1;
+            listener.onIdleChanged(false, FULL_RATE);
+        }
+    }
+
+    /**
+     * Signals that a note was played. Reports the wake-up latency once after idle mode.
+     */
+    public void onNotePlayed() {
+        if (wakeFrameNanos >= 0) {
+            long nanos = System.nanoTime() - wakeFrameNanos;
+            wakeFrameNanos = -1;
+            listener.onFirstNoteAfterIdle(nanos);
+        }
+    }
+}
@@ -12,15 +12,20 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.ProgressBar;
 import android.widget.RadioButton;
 import android.widget.Spinner;
 import android.widget.TextView;
 
 import com.example.anzem.myapplication.guitar.GuitarEvent;
+import com.example.anzem.myapplication.looper.PhraseLooper;
+import com.example.anzem.myapplication.metrics.MetricsExporter;
+import com.example.anzem.myapplication.metrics.PipelineMetrics;
 
 import org.billthefarmer.mididriver.MidiDriver;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Random;
 
@@ -32,19 +37,73 @@ public class MainActivity extends AppCompatActivity implements MidiDriver.OnMidi
     private RadioButton rbOctave;
     private RadioButton rbPentatonic;
     private RadioButton rbSlide;
+    private Button btLooper;
 
     private MidiDriver midiDriver;
-    private byte[] event;
     private int[] config;
 
+    /** MIDI channel used for live guitar events. */
+    private static final byte LIVE_CHANNEL = 0x00;
+    /** MIDI channel used for looped events, so live note offs don't cut the loop. */
+    private static final byte LOOP_CHANNEL = 0x01;
+
     private String[] instruments = {"Piano", "Marimba", "Rock Organ", "Accordion", "Guitar", "Electric Guitar", "Overdriven guitar", "Distortion Guitar", "Acoustic bass"};
     private int[] idxs = {1,13, 19, 22, 25, 27, 30, 31, 33};
     private HashMap<String, Integer> instrVals = new HashMap<>();
 
     private GuitarEvent oldEvent = null;
 
+    private PhraseLooper looper = new PhraseLooper(new PhraseLooper.MidiSink() {
+        @Override
+        public void playNote(byte note) {
+            MainActivity.this.playNote(note, LOOP_CHANNEL);
+        }
+
+        @Override
+        public void stopNote(byte note) {
+            MainActivity.this.stopNote(note, LOOP_CHANNEL);
+        }
+
+        @Override
+        public void setPitchBend(int value) {
+            MainActivity.this.setPitchBend(value, LOOP_CHANNEL);
+        }
+    });
+
     private BluetoothConnectionService  mBluetoothConnection;
 
+    /** Time between two metrics snapshots written to a file. */
+    private static final long METRICS_INTERVAL_MILLIS = 5000;
+    /** Loopback port of the metrics endpoint in debug builds. */
+    private static final int METRICS_PORT = 8765;
+
+    private MetricsExporter metricsExporter;
+
+    /** Prefix of the sensor rate confirmation sent by the EV3. */
+    private static final String SENSOR_RATE_ACK = "R;";
+
+    /** Time between two metrics snapshots in idle mode. */
+    private static final long METRICS_IDLE_INTERVAL_MILLIS = 30000;
+
+    private IdleController idleController = new IdleController(new IdleController.Listener() {
+        @Override
+        public void onIdleChanged(boolean idle, int sensorRate) {
+            Log.d(MainActivity.class.getName(), (idle ? "Entering" : "Leaving") + " idle mode, sensor rate: " + sensorRate);
+            PipelineMetrics.IDLE.set(idle ? 1 : 0);
+            if (idle) {
+                PipelineMetrics.IDLE_ENTRIES.increment();
+            }
+            mBluetoothConnection.requestSensorRate(sensorRate, idle);
+            metricsExporter.setIntervalMillis(idle ? METRICS_IDLE_INTERVAL_MILLIS : METRICS_INTERVAL_MILLIS);
+        }
+
+        @Override
+        public void onFirstNoteAfterIdle(long nanos) {
+            Log.d(MainActivity.class.getName(), "First note after idle: " + nanos / 1000 + " us");
+            PipelineMetrics.FIRST_NOTE_AFTER_IDLE_NANOS.set(nanos);
+        }
+    });
+
     /* -------------------------------------------------------------------
      * INITIALIZATION PART
      * ------------------------------------------------------------------- */
@@ -77,6 +136,15 @@ public class MainActivity extends AppCompatActivity implements MidiDriver.OnMidi
         rbPentatonic = (RadioButton) findViewById(R.id.rbPentatonic);
         rbSlide = (RadioButton) findViewById(R.id.rbSlide);
 
+        // phrase looper
+        btLooper = (Button) findViewById(R.id.btLooper);
+        btLooper.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                toggleLooper();
+            }
+        });
+
         // Instantiate the driver.
         midiDriver = new MidiDriver();
         // Set the listener.
@@ -84,6 +152,16 @@ public class MainActivity extends AppCompatActivity implements MidiDriver.OnMidi
 
         mBluetoothConnection = new BluetoothConnectionService(MainActivity.this);
         LocalBroadcastManager.getInstance(this).registerReceiver(mReceiver, new IntentFilter("incomingMessage"));
+
+        metricsExporter = new MetricsExporter(new File(getFilesDir(), "metrics.txt"),
+                METRICS_INTERVAL_MILLIS, BuildConfig.DEBUG ? METRICS_PORT : 0);
+        metricsExporter.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        metricsExporter.stop();
     }
 
     @Override
@@ -106,6 +184,11 @@ public class MainActivity extends AppCompatActivity implements MidiDriver.OnMidi
     @Override
     protected void onPause() {
         super.onPause();
+        if (looper.getState() != PhraseLooper.STATE_IDLE) {
+            looper.stop();
+            updateLooperButton();
+            notifyLooperState();
+        }
         midiDriver.stop();
     }
 
@@ -137,51 +220,78 @@ public class MainActivity extends AppCompatActivity implements MidiDriver.OnMidi
         Log.d(this.getClass().getName(), "onMidiStart()");
     }
 
+    private void writeMidi(byte[] event) {
+        long start = System.nanoTime();
+        midiDriver.write(event);
+        PipelineMetrics.recordMidiWrite(System.nanoTime() - start);
+    }
+
     private void playNote(byte note) {
-        // Construct a note ON message for the middle C at maximum velocity on channel 1:
-        event = new byte[3];
-        event[0] = (byte) (0x90 | 0x00);  // 0x90 = note On, 0x00 = channel 1
+        recordLoopEvent(PhraseLooper.NOTE_ON, note);
+        playNote(note, LIVE_CHANNEL);
+    }
+
+    private void playNote(byte note, byte channel) {
+        // Construct a note ON message at maximum velocity on the given channel:
+        byte[] event = new byte[3];
+        event[0] = (byte) (0x90 | channel);  // 0x90 = note On
         event[1] = note;  // 0x3C = middle C
         event[2] = (byte) 0x7F;  // 0x7F = the maximum velocity (127)
 
         // Send the MIDI event to the synthesizer.
-        midiDriver.write(event);
+        writeMidi(event);
+        PipelineMetrics.NOTES_ON.increment();
 
     }
 
     private void changeInstrument(byte inst) {
-        // Construct a note ON message for the middle C at maximum velocity on channel 1:
-        event = new byte[3];
-        event[0] = (byte) (0xC0 | 0x00);  // 0x90 = note On, 0x00 = channel 1
-        event[1] = (byte) 0x00;  // 0x3C = middle C
-        event[2] = inst;  // 0x7F = the maximum velocity (127)
+        changeInstrument(inst, LIVE_CHANNEL);
+        changeInstrument(inst, LOOP_CHANNEL);
+    }
+
+    private void changeInstrument(byte inst, byte channel) {
+        // Construct a program change message on the given channel:
+        byte[] event = new byte[2];
+        event[0] = (byte) (0xC0 | channel);  // 0xC0 = program change
+        event[1] = inst;  // program number
 
         // Send the MIDI event to the synthesizer.
-        midiDriver.write(event);
+        writeMidi(event);
 
     }
 
     private void stopNote(byte note) {
-        // Construct a note OFF message for the middle C at minimum velocity on channel 1:
-        event = new byte[3];
-        event[0] = (byte) (0x80 | 0x00);  // 0x80 = note Off, 0x00 = channel 1
+        recordLoopEvent(PhraseLooper.NOTE_OFF, note);
+        stopNote(note, LIVE_CHANNEL);
+    }
+
+    private void stopNote(byte note, byte channel) {
+        // Construct a note OFF message at minimum velocity on the given channel:
+        byte[] event = new byte[3];
+        event[0] = (byte) (0x80 | channel);  // 0x80 = note Off
         event[1] = (byte) note;  // 0x3C = middle C
         event[2] = (byte) 0x00;  // 0x00 = the minimum velocity (0)
 
         // Send the MIDI event to the synthesizer.
-        midiDriver.write(event);
+        writeMidi(event);
+        PipelineMetrics.NOTES_OFF.increment();
     }
 
     private void setPitchBend(int value) {
+        recordLoopEvent(PhraseLooper.PITCH_BEND, value);
+        setPitchBend(value, LIVE_CHANNEL);
+    }
+
+    private void setPitchBend(int value, byte channel) {
         byte lsb = (byte)(value & 0x7F);
         byte msb = (byte)((value >> 7) & 0x7F);
-        event = new byte[3];
-        event[0] = (byte) (0xD0 | 0x00);  // 0x80 = note Off, 0x00 = channel 1
-        event[1] = lsb;  // 0x3C = middle C
-        event[2] = msb;  // 0x00 = the minimum velocity (0)
+        byte[] event = new byte[3];
+        event[0] = (byte) (0xD0 | channel);
+        event[1] = lsb;
+        event[2] = msb;
 
         // Send the MIDI event to the synthesizer.
-        midiDriver.write(event);
+        writeMidi(event);
     }
 
     /* -------------------------------------------------------------------
@@ -222,9 +332,35 @@ public class MainActivity extends AppCompatActivity implements MidiDriver.OnMidi
 
     public void processNewGuitarEvent(String message)
     {
-        Integer[] receive = parseMessage(message);
+        processNewGuitarEvent(message, System.nanoTime());
+    }
+
+    public void processNewGuitarEvent(String message, long receivedNanos)
+    {
+        if (message.startsWith(SENSOR_RATE_ACK)) {
+            processSensorRateAck(message);
+            return;
+        }
+
+        Integer[] receive;
+        try {
+            receive = parseMessage(message);
+        } catch (NumberFormatException e) {
+            PipelineMetrics.PARSE_ERRORS.increment();
+            PipelineMetrics.DROPPED_FRAMES.increment();
+            return;
+        }
+        if (receive.length < 3) {
+            PipelineMetrics.DROPPED_FRAMES.increment();
+            return;
+        }
         GuitarEvent event = new GuitarEvent(receive[0], receive[1], receive[2]);
 
+        if (looper.getState() != PhraseLooper.STATE_IDLE) {
+            idleController.keepAwake(receivedNanos);
+        }
+        idleController.onFrame(receive[0], event.played, receivedNanos);
+
         // visualize recieved value
         pbNeck.setProgress(receive[0]);
 
@@ -234,13 +370,93 @@ public class MainActivity extends AppCompatActivity implements MidiDriver.OnMidi
             int midiNumber = event.note.midiNumber + (event.armPosition == GuitarEvent.ArmPosition.OCTAVE_UP ? GuitarEvent.OCTAVE_MODIFIER : 0);
             setPitchBend(event.armPosition == GuitarEvent.ArmPosition.SLIDE ? event.pitchBend : GuitarEvent.PITCH_BEND_DEFAULT);
             playNote((byte)midiNumber);
+            idleController.onNotePlayed();
             visualizeModifier(event.armPosition);
+            mBluetoothConnection.sendStatus(FeedbackChannel.STATUS_NOTE, "N;" + midiNumber);
         } else if (oldEvent != null && !event.equals(oldEvent)) {
             stopNote((byte) oldEvent.note.midiNumber);
+            mBluetoothConnection.sendStatus(FeedbackChannel.STATUS_NOTE, "N;-1");
+        }
+        if (oldEvent == null || oldEvent.armPosition != event.armPosition) {
+            mBluetoothConnection.sendStatus(FeedbackChannel.STATUS_TUNING, "T;" + event.armPosition);
         }
         oldEvent = event;
     }
 
+    private void processSensorRateAck(String message)
+    {
+        try {
+            int rate = Integer.parseInt(message.substring(SENSOR_RATE_ACK.length()).trim());
+            PipelineMetrics.SENSOR_RATE_CONFIRMED.set(rate);
+            Log.d(this.getClass().getName(), "EV3 confirmed sensor rate: " + rate);
+        } catch (NumberFormatException e) {
+            PipelineMetrics.PARSE_ERRORS.increment();
+        }
+    }
+
+    /* -------------------------------------------------------------------
+     * PHRASE LOOPER
+     * ------------------------------------------------------------------- */
+
+    private void toggleLooper()
+    {
+        switch (looper.getState())
+        {
+            case PhraseLooper.STATE_IDLE:
+                looper.startRecording();
+                break;
+            case PhraseLooper.STATE_RECORDING:
+                looper.stopRecording();
+                break;
+            default:
+                looper.stop();
+        }
+        updateLooperButton();
+        notifyLooperState();
+        if (looper.getState() != PhraseLooper.STATE_IDLE) {
+            idleController.keepAwake(System.nanoTime());
+        }
+    }
+
+    private void notifyLooperState()
+    {
+        // every transition is an event for the EV3, so it is queued rather than coalesced
+        switch (looper.getState())
+        {
+            case PhraseLooper.STATE_RECORDING:
+                mBluetoothConnection.send("L;RECORDING");
+                break;
+            case PhraseLooper.STATE_PLAYING:
+                mBluetoothConnection.send("L;PLAYING");
+                break;
+            default:
+                mBluetoothConnection.send("L;IDLE");
+        }
+    }
+
+    private void recordLoopEvent(byte type, int value)
+    {
+        // show that the phrase is full once events start being dropped
+        if (!looper.record(type, value)) {
+            updateLooperButton();
+        }
+    }
+
+    private void updateLooperButton()
+    {
+        switch (looper.getState())
+        {
+            case PhraseLooper.STATE_RECORDING:
+                btLooper.setText(looper.isTruncated() ? "Play loop (full)" : "Play loop");
+                break;
+            case PhraseLooper.STATE_PLAYING:
+                btLooper.setText(looper.isTruncated() ? "Stop loop (truncated)" : "Stop loop");
+                break;
+            default:
+                btLooper.setText("Record loop");
+        }
+    }
+
     /* -------------------------------------------------------------------
      * UTILITY
      * ------------------------------------------------------------------- */
@@ -257,7 +473,8 @@ public class MainActivity extends AppCompatActivity implements MidiDriver.OnMidi
         @Override
         public void onReceive(Context context, Intent intent) {
             String text = intent.getStringExtra("theMessage");
-            processNewGuitarEvent(text);
+            long receivedNanos = intent.getLongExtra("theTimestamp", System.nanoTime());
+            processNewGuitarEvent(text, receivedNanos);
         }
     };
 }
\ No newline at end of file
@@ -0,0 +1,264 @@
+package com.example.anzem.myapplication.looper;
+
+import com.example.anzem.myapplication.metrics.PipelineMetrics;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records a phrase from the live MIDI stream and plays it back in a loop.
+ * <p />
+ * Events are kept in preallocated primitive arrays of {@link #MAX_EVENTS} entries, so recording
+ * never allocates and a long phrase cannot grow memory. Playback runs on a dedicated scheduler
+ * thread which computes every event's deadline from the loop start time, so timing errors do not
+ * accumulate from one repetition to the next.
+ */
+public class PhraseLooper {
+
+    /**
+     * Receiver of the events played back by the looper.
+     */
+    public interface MidiSink {
+        void playNote(byte note);
+        void stopNote(byte note);
+        void setPitchBend(int value);
+    }
+
+    /** Looper is empty or stopped. */
+    public static final int STATE_IDLE = 0;
+    /** Looper is recording live events. */
+    public static final int STATE_RECORDING = 1;
+    /** Looper is playing the recorded phrase. */
+    public static final int STATE_PLAYING = 2;
+
+    /** Event type - note on, value is MIDI note number. */
+    public static final byte NOTE_ON = 0;
+    /** Event type - note off, value is MIDI note number. */
+    public static final byte NOTE_OFF = 1;
+    /** Event type - pitch bend, value is the bend amount. */
+    public static final byte PITCH_BEND = 2;
+
+    /** Maximum number of events in a recorded phrase. Further events are ignored. */
+    public static final int MAX_EVENTS = 1024;
+    /** Loops shorter than this are discarded. */
+    static final long MIN_LOOP_NANOS = 100000000L;
+    /** Number of MIDI notes. */
+    private static final int MIDI_NOTES = 128;
+
+    private static final String TAG = "PhraseLooper";
+
+    private final MidiSink sink;
+
+    // event storage, written only while recording and read only while playing
+    private final long[] offsets = new long[MAX_EVENTS];
+    private final byte[] types = new byte[MAX_EVENTS];
+    private final int[] values = new int[MAX_EVENTS];
+
+    private int recorded;
+    private long recordStart;
+    /** Notes recorded as on and not yet released, so repeated note offs are not recorded. */
+    private final boolean[] recordedOn = new boolean[MIDI_NOTES];
+    /** Events dropped because the phrase was full. */
+    private int dropped;
+
+    /** Number of events in the published phrase. */
+    private volatile int count;
+    /** Length of the published phrase in nanoseconds. */
+    private volatile long loopLength;
+    private volatile int state = STATE_IDLE;
+
+    private SchedulerThread mSchedulerThread;
+
+    /**
+     * Constructs a new looper.
+     * @param sink receiver of the played back events.
+     */
+    public PhraseLooper(MidiSink sink) {
+        this.sink = sink;
+    }
+
+    /** @return current looper state. */
+    public int getState() {
+        return state;
+    }
+
+    /** @return number of events in the last recorded phrase. */
+    public int getEventCount() {
+        return count;
+    }
+
+    /** @return true if events were dropped from the current or last phrase because it was full. */
+    public boolean isTruncated() {
+        return dropped > 0;
+    }
+
+    /**
+     * Stops any playback and starts recording a new phrase.
+     */
+    public synchronized void startRecording() {
+        stopPlayback();
+        recorded = 0;
+        dropped = 0;
+        Arrays.fill(recordedOn, false);
+        recordStart = System.nanoTime();
+        state = STATE_RECORDING;
+    }
+
+    /**
+     * Ends the recording and starts looping the recorded phrase.
+     * @return true if the phrase was long enough and playback started.
+     */
+    public synchronized boolean stopRecording() {
+        if (state != STATE_RECORDING) {
+            return false;
+        }
+        long length = System.nanoTime() - recordStart;
+        if (length < MIN_LOOP_NANOS || recorded == 0) {
+            state = STATE_IDLE;
+            return false;
+        }
+        loopLength = length;
+        // volatile write publishes the recorded arrays to the scheduler thread
+        count = recorded;
+        state = STATE_PLAYING;
+
+        mSchedulerThread = new SchedulerThread();
+        mSchedulerThread.start();
+        return true;
+    }
+
+    /**
+     * Stops recording or playback. Notes sounding from the loop are released.
+     */
+    public synchronized void stop() {
+        stopPlayback();
+        state = STATE_IDLE;
+    }
+
+    /**
+     * Records a live event. Cheap to call in any state; ignored unless recording. A note off is
+     * only recorded for a note recorded as on and not released yet.
+     * @param type one of {@link #NOTE_ON}, {@link #NOTE_OFF}, {@link #PITCH_BEND}.
+     * @param value note number or bend amount.
+     * @return false if the event was dropped because the phrase is full.
+     */
+    public boolean record(byte type, int value) {
+        if (state != STATE_RECORDING) {
+            return true;
+        }
+        if (type == NOTE_OFF && !recordedOn[value & 0x7F]) {
+            return true;
+        }
+        if (recorded >= MAX_EVENTS) {
+            dropped++;
+            PipelineMetrics.LOOPER_EVENTS_DROPPED.increment();
+            return false;
+        }
+        if (type == NOTE_ON) {
+            recordedOn[value & 0x7F] = true;
+        } else if (type == NOTE_OFF) {
+            recordedOn[value & 0x7F] = false;
+        }
+        int i = recorded;
+        offsets[i] = System.nanoTime() - recordStart;
+        types[i] = type;
+        values[i] = value;
+        recorded = i + 1;
+        return true;
+    }
+
+    private void stopPlayback() {
+        if (mSchedulerThread != null) {
+            mSchedulerThread.cancel();
+            mSchedulerThread = null;
+        }
+    }
+
+    /**
+     * This thread plays the recorded phrase using absolute deadlines.
+     */
+    private class SchedulerThread extends Thread {
+        private final boolean[] sounding = new boolean[MIDI_NOTES];
+        private volatile boolean running = true;
+
+        SchedulerThread() {
+            super(TAG);
+            setPriority(Thread.MAX_PRIORITY);
+        }
+
+        public void run() {
+            final int events = count;
+            final long length = loopLength;
+            final long start = System.nanoTime();
+            long iteration = 0;
+
+            while (running) {
+                final long iterationStart = start + iteration * length;
+                for (int i = 0; i < events && running; i++) {
+                    if (!waitUntil(iterationStart + offsets[i])) {
+                        break;
+                    }
+                    dispatch(types[i], values[i]);
+                }
+                if (!running || !waitUntil(iterationStart + length)) {
+                    break;
+                }
+                releaseAll();
+                iteration++;
+            }
+            releaseAll();
+        }
+
+        public void cancel() {
+            running = false;
+            interrupt();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Parks until the given deadline.
+         * @return false if the thread was cancelled while waiting.
+         */
+        private boolean waitUntil(long deadline) {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                if (!running) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            return running;
+        }
+
+        private void dispatch(byte type, int value) {
+            switch (type) {
+                case NOTE_ON:
+                    sounding[value & 0x7F] = true;
+                    sink.playNote((byte) value);
+                    break;
+                case NOTE_OFF:
+                    sounding[value & 0x7F] = false;
+                    sink.stopNote((byte) value);
+                    break;
+                case PITCH_BEND:
+                    sink.setPitchBend(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void releaseAll() {
+            for (int note = 0; note < MIDI_NOTES; note++) {
+                if (sounding[note]) {
+                    sounding[note] = false;
+                    sink.stopNote((byte) note);
+                }
+            }
+        }
+    }
+}
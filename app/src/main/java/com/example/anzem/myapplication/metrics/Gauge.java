@@ -0,0 +1,47 @@
+package com.example.anzem.myapplication.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single value which can be set or raised to a new maximum.
+ */
+public class Gauge {
+
+    private final String name;
+    private final AtomicLong value = new AtomicLong();
+
+    Gauge(String name) {
+        this.name = name;
+    }
+
+    /** @return name of the gauge. */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the gauge.
+     * @param newValue new value.
+     */
+    public void set(long newValue) {
+        value.lazySet(newValue);
+    }
+
+    /**
+     * Raises the gauge to the given value if it is larger than the current one.
+     * @param candidate possible new maximum.
+     */
+    public void max(long candidate) {
+        long current;
+        while (candidate > (current = value.get())) {
+            if (value.compareAndSet(current, candidate)) {
+                return;
+            }
+        }
+    }
+
+    /** @return current value. */
+    public long get() {
+        return value.get();
+    }
+}
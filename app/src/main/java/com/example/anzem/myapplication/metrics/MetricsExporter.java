@@ -0,0 +1,174 @@
+package com.example.anzem.myapplication.metrics;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * Periodically exports {@link PipelineMetrics} snapshots.
+ * <p />
+ * Snapshots are written to a local file and, when a port is given, served as plain text on the
+ * loopback interface. From a laptop run {@code adb forward tcp:PORT tcp:PORT} and open
+ * {@code http://localhost:PORT/}.
+ */
+public class MetricsExporter {
+    private static final String TAG = "MetricsExporter";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private volatile long mIntervalMillis;
+    private final int mPort;
+
+    private SnapshotThread mSnapshotThread;
+    private HttpThread mHttpThread;
+
+    /**
+     * Constructs a new exporter.
+     * @param file file receiving the snapshots.
+     * @param intervalMillis time between two file snapshots.
+     * @param port loopback port of the text endpoint, 0 to disable it.
+     */
+    public MetricsExporter(File file, long intervalMillis, int port) {
+        this.mFile = file;
+        this.mIntervalMillis = intervalMillis;
+        this.mPort = port;
+    }
+
+    public synchronized void start()
+    {
+        if (mSnapshotThread == null) {
+            mSnapshotThread = new SnapshotThread();
+            mSnapshotThread.start();
+        }
+        if (mPort > 0 && mHttpThread == null) {
+            mHttpThread = new HttpThread();
+            mHttpThread.start();
+        }
+    }
+
+    /**
+     * Changes the time between two file snapshots, e.g. to write less often while idle.
+     * @param intervalMillis new interval.
+     */
+    public synchronized void setIntervalMillis(long intervalMillis)
+    {
+        mIntervalMillis = intervalMillis;
+        if (mSnapshotThread != null) {
+            mSnapshotThread.interrupt();
+        }
+    }
+
+    public synchronized void stop()
+    {
+        if (mSnapshotThread != null) {
+            mSnapshotThread.cancel();
+            mSnapshotThread = null;
+        }
+        if (mHttpThread != null) {
+            mHttpThread.cancel();
+            mHttpThread = null;
+        }
+    }
+
+    /**
+     * This thread writes a snapshot to the file on every interval.
+     */
+    private class SnapshotThread extends Thread {
+        private volatile boolean running = true;
+
+        public void run()
+        {
+            File tmp = new File(mFile.getPath() + ".tmp");
+            while (running) {
+                try {
+                    Thread.sleep(mIntervalMillis);
+                } catch (InterruptedException e) {
+                    // either cancelled or the interval changed
+                    continue;
+                }
+                byte[] data = PipelineMetrics.snapshot(System.currentTimeMillis()).getBytes(UTF8);
+                try {
+                    OutputStream out = new FileOutputStream(tmp);
+                    try {
+                        out.write(data);
+                    } finally {
+                        out.close();
+                    }
+                    if (!tmp.renameTo(mFile)) {
+                        Log.d(TAG, "run: Unable to replace " + mFile);
+                    }
+                } catch (IOException e) {
+                    Log.d(TAG, "run: IOException: " + e.getMessage());
+                }
+            }
+        }
+
+        public void cancel()
+        {
+            running = false;
+            interrupt();
+        }
+    }
+
+    /**
+     * This thread answers every connection on the loopback port with a fresh snapshot.
+     */
+    private class HttpThread extends Thread {
+        private volatile ServerSocket mmServerSocket;
+        private volatile boolean cancelled;
+
+        public void run()
+        {
+            try {
+                mmServerSocket = new ServerSocket(mPort, 1, InetAddress.getByName("127.0.0.1"));
+                Log.d(TAG, "HttpThread: Serving metrics on port " + mPort);
+            } catch (IOException e) {
+                Log.d(TAG, "HttpThread: IOException: " + e.getMessage());
+                return;
+            }
+            if (cancelled) {
+                cancel();
+            }
+
+            while (!mmServerSocket.isClosed()) {
+                try {
+                    Socket client = mmServerSocket.accept();
+                    try {
+                        byte[] body = PipelineMetrics.snapshot(System.currentTimeMillis()).getBytes(UTF8);
+                        String header = "HTTP/1.0 200 OK\r\n"
+                                + "Content-Type: text/plain; charset=utf-8\r\n"
+                                + "Content-Length: " + body.length + "\r\n"
+                                + "Connection: close\r\n\r\n";
+                        OutputStream out = client.getOutputStream();
+                        out.write(header.getBytes(UTF8));
+                        out.write(body);
+                        out.flush();
+                    } finally {
+                        client.close();
+                    }
+                } catch (IOException e) {
+                    Log.d(TAG, "HttpThread: IOException: " + e.getMessage());
+                }
+            }
+        }
+
+        public void cancel()
+        {
+            cancelled = true;
+            try {
+                if (mmServerSocket != null) {
+                    mmServerSocket.close();
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "cancel: Close of metrics ServerSocket failed." + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.anzem.myapplication.metrics;
+
+/**
+ * Registry of counters and gauges describing the live guitar pipeline.
+ * <p />
+ * Updates are lock-free and cheap enough to be called for every frame and MIDI message.
+ */
+public final class PipelineMetrics {
+
+    /** Reads from the Bluetooth socket; one read may hold several frames or part of one. */
+    public static final StripedCounter SOCKET_READS = new StripedCounter("socket_reads");
+    /** Bytes read from the Bluetooth socket. */
+    public static final StripedCounter BYTES_READ = new StripedCounter("bytes_read");
+    /** Frames which could not be parsed. */
+    public static final StripedCounter PARSE_ERRORS = new StripedCounter("parse_errors");
+    /** Frames discarded without being processed. */
+    public static final StripedCounter DROPPED_FRAMES = new StripedCounter("dropped_frames");
+    /** Note on messages sent to the synthesizer. */
+    public static final StripedCounter NOTES_ON = new StripedCounter("notes_on");
+    /** Note off messages sent to the synthesizer. */
+    public static final StripedCounter NOTES_OFF = new StripedCounter("notes_off");
+    /** MIDI messages written to the synthesizer. */
+    public static final StripedCounter MIDI_WRITES = new StripedCounter("midi_writes");
+    /** Total time spent writing MIDI messages, in nanoseconds. */
+    public static final StripedCounter MIDI_WRITE_NANOS = new StripedCounter("midi_write_nanos");
+    /** Connections established after the first one. */
+    public static final StripedCounter RECONNECTS = new StripedCounter("reconnects");
+    /** Batched writes to the EV3 feedback channel. */
+    public static final StripedCounter FEEDBACK_WRITES = new StripedCounter("feedback_writes");
+    /** Status updates replaced before they were sent. */
+    public static final StripedCounter FEEDBACK_COALESCED = new StripedCounter("feedback_coalesced");
+    /** Feedback messages dropped because the queue was full. */
+    public static final StripedCounter FEEDBACK_DROPPED = new StripedCounter("feedback_dropped");
+    /** Loop events dropped because the recorded phrase was full. */
+    public static final StripedCounter LOOPER_EVENTS_DROPPED = new StripedCounter("looper_events_dropped");
+    /** Times the guitar entered idle mode. */
+    public static final StripedCounter IDLE_ENTRIES = new StripedCounter("idle_entries");
+
+    /** Longest single MIDI write, in nanoseconds. */
+    public static final Gauge MIDI_WRITE_MAX_NANOS = new Gauge("midi_write_max_nanos");
+    /** 1 while a guitar is connected, 0 otherwise. */
+    public static final Gauge CONNECTED = new Gauge("connected");
+    /** 1 while in idle mode, 0 otherwise. */
+    public static final Gauge IDLE = new Gauge("idle");
+    /** Sensor rate last confirmed by the EV3, in frames per second. 0 until confirmed. */
+    public static final Gauge SENSOR_RATE_CONFIRMED = new Gauge("sensor_rate_confirmed");
+    /** Time from the waking frame to the first note after the last idle period, in nanoseconds. */
+    public static final Gauge FIRST_NOTE_AFTER_IDLE_NANOS = new Gauge("first_note_after_idle_nanos");
+
+    private static final StripedCounter[] COUNTERS = {
+            SOCKET_READS, BYTES_READ, PARSE_ERRORS, DROPPED_FRAMES, NOTES_ON, NOTES_OFF,
+            MIDI_WRITES, MIDI_WRITE_NANOS, RECONNECTS, FEEDBACK_WRITES, FEEDBACK_COALESCED,
+            FEEDBACK_DROPPED, LOOPER_EVENTS_DROPPED, IDLE_ENTRIES
+    };
+    private static final Gauge[] GAUGES = {
+            MIDI_WRITE_MAX_NANOS, CONNECTED, IDLE, SENSOR_RATE_CONFIRMED, FIRST_NOTE_AFTER_IDLE_NANOS
+    };
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Records a single MIDI write.
+     * @param nanos duration of the write.
+     */
+    public static void recordMidiWrite(long nanos) {
+        MIDI_WRITES.increment();
+        MIDI_WRITE_NANOS.add(nanos);
+        MIDI_WRITE_MAX_NANOS.max(nanos);
+    }
+
+    /**
+     * Builds a plain text snapshot with one "name value" pair per line.
+     * @param timestampMillis wall clock time of the snapshot.
+     * @return snapshot text.
+     */
+    public static String snapshot(long timestampMillis) {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("timestamp_ms ").append(timestampMillis).append('\n');
+        for (StripedCounter counter : COUNTERS) {
+            sb.append(counter.getName()).append(' ').append(counter.get()).append('\n');
+        }
+        for (Gauge gauge : GAUGES) {
+            sb.append(gauge.getName()).append(' ').append(gauge.get()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.anzem.myapplication.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Monotonic counter spread over several cache-line padded cells.
+ * <p />
+ * Each thread updates the cell picked by its id, so threads updating the same counter rarely
+ * touch the same cache line. Reads sum all cells and are only meant for periodic snapshots.
+ */
+public class StripedCounter {
+
+    /** Number of cells. Must be a power of two. */
+    private static final int STRIPES = 8;
+    /** Distance between used slots, 8 longs = 64 bytes, one cache line. */
+    private static final int PADDING = 8;
+
+    private final String name;
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    StripedCounter(String name) {
+        this.name = name;
+    }
+
+    /** @return name of the counter. */
+    public String getName() {
+        return name;
+    }
+
+    /** Increments the counter by one. */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Adds a value to the counter.
+     * @param delta amount to add.
+     */
+    public void add(long delta) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        cells.getAndAdd(stripe * PADDING, delta);
+    }
+
+    /** @return current sum of all cells. */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.anzem.myapplication;
+
+import com.example.anzem.myapplication.metrics.PipelineMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FeedbackChannel}.
+ */
+public class FeedbackChannelTest {
+
+    private static final long TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Stream recording every write. The first write blocks until released, like a congested link.
+     */
+    private static class SlowStream extends OutputStream {
+        final CountDownLatch firstWriteEntered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final List<String> writes = new ArrayList<>();
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            firstWriteEntered.countDown();
+            try {
+                release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                writes.add(new String(b, off, len));
+            }
+        }
+
+        synchronized List<String> writes() {
+            return new ArrayList<>(writes);
+        }
+
+        List<String> awaitWrites(int n) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            List<String> result = writes();
+            while (result.size() < n && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+                result = writes();
+            }
+            return result;
+        }
+    }
+
+    private SlowStream stream;
+    private FeedbackChannel channel;
+
+    @Before
+    public void setUp() {
+        stream = new SlowStream();
+        channel = new FeedbackChannel(stream);
+    }
+
+    @After
+    public void tearDown() {
+        stream.release.countDown();
+        channel.cancel();
+    }
+
+    private static int countLines(String batch, String prefix) {
+        int n = 0;
+        for (String line : batch.split("\n")) {
+            if (line.startsWith(prefix)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void congestedLink_coalescesAndBatches() throws Exception {
+        long coalesced = PipelineMetrics.FEEDBACK_COALESCED.get();
+        long dropped = PipelineMetrics.FEEDBACK_DROPPED.get();
+
+        // pending before start, so it is part of the first batch together with the heartbeat
+        channel.sendStatus(FeedbackChannel.STATUS_NOTE, "N;0");
+        channel.start();
+        assertTrue(stream.firstWriteEntered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        // the writer is stuck in the first write, everything below has to wait
+        int accepted = 0;
+        for (int i = 1; i <= 1000; i++) {
+            channel.sendStatus(FeedbackChannel.STATUS_NOTE, "N;" + i);
+            if (channel.send("L;" + i)) {
+                accepted++;
+            }
+        }
+        stream.release.countDown();
+
+        List<String> writes = stream.awaitWrites(2);
+        assertEquals(2, writes.size());
+        assertTrue(writes.get(0).contains("N;0\n"));
+        String batch = writes.get(1);
+        assertEquals(1, countLines(batch, "N;"));
+        assertTrue(batch.contains("N;1000\n"));
+        assertEquals(accepted, countLines(batch, "L;"));
+        assertTrue(batch.startsWith("N;1000\nL;1\n"));
+
+        assertEquals(999, PipelineMetrics.FEEDBACK_COALESCED.get() - coalesced);
+        assertEquals(1000 - accepted, PipelineMetrics.FEEDBACK_DROPPED.get() - dropped);
+        assertTrue(accepted < 1000);
+    }
+
+    @Test
+    public void heartbeat_isSentEverySecond() throws Exception {
+        stream.release.countDown();
+        channel.start();
+
+        List<String> writes = stream.awaitWrites(2);
+        assertEquals(2, writes.size());
+        assertTrue(writes.get(0).startsWith("H;"));
+        assertTrue(writes.get(1).startsWith("H;"));
+    }
+
+    @Test
+    public void idleHeartbeat_keepsWriterParked() throws Exception {
+        stream.release.countDown();
+        channel.setIdle(true);
+        channel.start();
+
+        assertEquals(1, stream.awaitWrites(1).size());
+        Thread.sleep(1500);
+        assertEquals(1, stream.writes().size());
+    }
+
+    @Test
+    public void cancel_endsWriter() throws Exception {
+        stream.release.countDown();
+        channel.start();
+        assertTrue(channel.isWriterAlive());
+
+        channel.cancel();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (channel.isWriterAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(channel.isWriterAlive());
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.anzem.myapplication;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link IdleController}, driven by synthetic frame timestamps.
+ */
+public class IdleControllerTest {
+
+    private static final long TIMEOUT = IdleController.IDLE_TIMEOUT_NANOS;
+    private static final int NECK = 30;
+
+    /** Listener recording every callback. */
+    private static class RecordingListener implements IdleController.Listener {
+        final List<Integer> rates = new ArrayList<>();
+        final List<Boolean> idleChanges = new ArrayList<>();
+        int firstNotes = 0;
+
+        @Override
+        public void onIdleChanged(boolean idle, int sensorRate) {
+            idleChanges.add(idle);
+            rates.add(sensorRate);
+        }
+
+        @Override
+        public void onFirstNoteAfterIdle(long nanos) {
+            firstNotes++;
+        }
+    }
+
+    private RecordingListener listener;
+    private IdleController controller;
+    private long base;
+
+    @Before
+    public void setUp() {
+        listener = new RecordingListener();
+        controller = new IdleController(listener);
+        base = System.nanoTime();
+    }
+
+    private void enterIdle() {
+        controller.onFrame(NECK, false, base);
+        controller.onFrame(NECK, false, base + TIMEOUT);
+        assertTrue(controller.isIdle());
+    }
+
+    @Test
+    public void stableNeck_entersIdleAfterTimeout() {
+        controller.onFrame(NECK, false, base);
+        controller.onFrame(NECK + 1, false, base + TIMEOUT - 1);
+        assertFalse(controller.isIdle());
+        assertTrue(listener.idleChanges.isEmpty());
+
+        controller.onFrame(NECK - 1, false, base + TIMEOUT);
+        assertTrue(controller.isIdle());
+        assertEquals(1, listener.idleChanges.size());
+        assertEquals(IdleController.IDLE_RATE, (int) listener.rates.get(0));
+    }
+
+    @Test
+    public void neckAtZero_isUsedAsReference() {
+        controller.onFrame(0, false, base);
+        controller.onFrame(0, false, base + TIMEOUT);
+        assertTrue(controller.isIdle());
+    }
+
+    @Test
+    public void neckMovement_resetsTimerWhileActive() {
+        controller.onFrame(NECK, false, base);
+        controller.onFrame(NECK + 10, false, base + TIMEOUT / 2);
+        controller.onFrame(NECK + 10, false, base + TIMEOUT);
+        assertFalse(controller.isIdle());
+
+        controller.onFrame(NECK + 10, false, base + TIMEOUT / 2 + TIMEOUT);
+        assertTrue(controller.isIdle());
+    }
+
+    @Test
+    public void neckMovement_doesNotLeaveIdle() {
+        enterIdle();
+
+        controller.onFrame(NECK + 20, false, base + 2 * TIMEOUT);
+        controller.onFrame(NECK - 20, false, base + 3 * TIMEOUT);
+        assertTrue(controller.isIdle());
+        assertEquals(1, listener.idleChanges.size());
+    }
+
+    @Test
+    public void pick_leavesIdleWithFullRate() {
+        enterIdle();
+
+        controller.onFrame(NECK, true, base + 2 * TIMEOUT);
+        assertFalse(controller.isIdle());
+        assertEquals(2, listener.idleChanges.size());
+        assertEquals(false, listener.idleChanges.get(1));
+        assertEquals(IdleController.FULL_RATE, (int) listener.rates.get(1));
+    }
+
+    @Test
+    public void keepAwake_preventsIdleWhileLooperRuns() {
+        controller.onFrame(NECK, false, base);
+        for (long t = TIMEOUT / 2; t <= 3 * TIMEOUT; t += TIMEOUT / 2) {
+            controller.keepAwake(base + t);
+            controller.onFrame(NECK, false, base + t);
+        }
+        assertFalse(controller.isIdle());
+        assertTrue(listener.idleChanges.isEmpty());
+
+        // once the looper stops, the timer runs from the last keepAwake
+        controller.onFrame(NECK, false, base + 4 * TIMEOUT);
+        assertTrue(controller.isIdle());
+    }
+
+    @Test
+    public void keepAwake_leavesIdleWithFullRate() {
+        enterIdle();
+
+        controller.keepAwake(base + 2 * TIMEOUT);
+        assertFalse(controller.isIdle());
+        assertEquals(IdleController.FULL_RATE, (int) listener.rates.get(1));
+        controller.onNotePlayed();
+        assertEquals(0, listener.firstNotes);
+    }
+
+    @Test
+    public void firstNoteAfterIdle_isReportedOnce() {
+        controller.onNotePlayed();
+        assertEquals(0, listener.firstNotes);
+
+        enterIdle();
+        controller.onFrame(NECK, true, base + 2 * TIMEOUT);
+        controller.onNotePlayed();
+        controller.onNotePlayed();
+        assertEquals(1, listener.firstNotes);
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.anzem.myapplication.looper;
+
+import com.example.anzem.myapplication.metrics.PipelineMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PhraseLooper}.
+ */
+public class PhraseLooperTest {
+
+    private static final long TIMEOUT_MILLIS = 2000;
+
+    /** Sink recording every event as "type:value". */
+    private static class RecordingSink implements PhraseLooper.MidiSink {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public synchronized void playNote(byte note) {
+            events.add("on:" + note);
+        }
+
+        @Override
+        public synchronized void stopNote(byte note) {
+            events.add("off:" + note);
+        }
+
+        @Override
+        public synchronized void setPitchBend(int value) {
+            events.add("bend:" + value);
+        }
+
+        synchronized List<String> snapshot() {
+            return new ArrayList<>(events);
+        }
+
+        List<String> awaitEvents(int n) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            List<String> result = snapshot();
+            while (result.size() < n && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+                result = snapshot();
+            }
+            return result;
+        }
+    }
+
+    private RecordingSink sink;
+    private PhraseLooper looper;
+
+    @Before
+    public void setUp() {
+        sink = new RecordingSink();
+        looper = new PhraseLooper(sink);
+    }
+
+    @After
+    public void tearDown() {
+        looper.stop();
+    }
+
+    private static void sleepPastMinimumLoop() throws InterruptedException {
+        Thread.sleep(PhraseLooper.MIN_LOOP_NANOS / 1000000 + 20);
+    }
+
+    @Test
+    public void playback_followsRecordedOrder() throws Exception {
+        looper.startRecording();
+        looper.record(PhraseLooper.NOTE_ON, 60);
+        looper.record(PhraseLooper.PITCH_BEND, 8192);
+        Thread.sleep(10);
+        looper.record(PhraseLooper.NOTE_OFF, 60);
+        looper.record(PhraseLooper.NOTE_ON, 64);
+        sleepPastMinimumLoop();
+
+        assertTrue(looper.stopRecording());
+        assertEquals(PhraseLooper.STATE_PLAYING, looper.getState());
+        assertEquals(4, looper.getEventCount());
+
+        List<String> played = sink.awaitEvents(4);
+        assertEquals("on:60", played.get(0));
+        assertEquals("bend:8192", played.get(1));
+        assertEquals("off:60", played.get(2));
+        assertEquals("on:64", played.get(3));
+    }
+
+    @Test
+    public void recordIgnoredWhenNotRecording() throws Exception {
+        looper.record(PhraseLooper.NOTE_ON, 60);
+        assertFalse(looper.stopRecording());
+        assertEquals(PhraseLooper.STATE_IDLE, looper.getState());
+        assertEquals(0, looper.getEventCount());
+    }
+
+    @Test
+    public void shortLoop_isDiscarded() throws Exception {
+        looper.startRecording();
+        looper.record(PhraseLooper.NOTE_ON, 60);
+
+        assertFalse(looper.stopRecording());
+        assertEquals(PhraseLooper.STATE_IDLE, looper.getState());
+        Thread.sleep(50);
+        assertTrue(sink.snapshot().isEmpty());
+    }
+
+    @Test
+    public void emptyLoop_isDiscarded() throws Exception {
+        looper.startRecording();
+        sleepPastMinimumLoop();
+
+        assertFalse(looper.stopRecording());
+        assertEquals(PhraseLooper.STATE_IDLE, looper.getState());
+    }
+
+    @Test
+    public void recording_isBoundedByMaxEvents() throws Exception {
+        long droppedBefore = PipelineMetrics.LOOPER_EVENTS_DROPPED.get();
+        looper.startRecording();
+        for (int i = 0; i < PhraseLooper.MAX_EVENTS; i++) {
+            assertTrue(looper.record(PhraseLooper.PITCH_BEND, i));
+        }
+        assertFalse(looper.isTruncated());
+        for (int i = 0; i < 100; i++) {
+            assertFalse(looper.record(PhraseLooper.PITCH_BEND, i));
+        }
+        assertTrue(looper.isTruncated());
+        assertEquals(100, PipelineMetrics.LOOPER_EVENTS_DROPPED.get() - droppedBefore);
+        sleepPastMinimumLoop();
+
+        assertTrue(looper.stopRecording());
+        assertEquals(PhraseLooper.MAX_EVENTS, looper.getEventCount());
+
+        List<String> played = sink.awaitEvents(PhraseLooper.MAX_EVENTS);
+        assertEquals("bend:" + (PhraseLooper.MAX_EVENTS - 1), played.get(PhraseLooper.MAX_EVENTS - 1));
+    }
+
+    @Test
+    public void noteOff_onlyRecordedForSoundingNote() throws Exception {
+        looper.startRecording();
+        looper.record(PhraseLooper.NOTE_OFF, 60);
+        looper.record(PhraseLooper.NOTE_ON, 60);
+        for (int i = 0; i < 2 * PhraseLooper.MAX_EVENTS; i++) {
+            looper.record(PhraseLooper.NOTE_OFF, 60);
+        }
+        sleepPastMinimumLoop();
+
+        assertTrue(looper.stopRecording());
+        assertEquals(2, looper.getEventCount());
+        assertFalse(looper.isTruncated());
+    }
+
+    @Test
+    public void stop_releasesSoundingNotes() throws Exception {
+        looper.startRecording();
+        looper.record(PhraseLooper.NOTE_ON, 60);
+        sleepPastMinimumLoop();
+        assertTrue(looper.stopRecording());
+        assertEquals("on:60", sink.awaitEvents(1).get(0));
+
+        looper.stop();
+
+        assertEquals(PhraseLooper.STATE_IDLE, looper.getState());
+        List<String> played = sink.snapshot();
+        assertEquals("off:60", played.get(played.size() - 1));
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.anzem.myapplication.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Gauge}.
+ */
+public class GaugeTest {
+
+    private static final int THREADS = 8;
+    private static final int VALUES = 100000;
+
+    @Test
+    public void set_replacesValueAndMaxOnlyRaises() {
+        Gauge gauge = new Gauge("test");
+        gauge.set(10);
+        gauge.max(5);
+        assertEquals(10, gauge.get());
+        gauge.max(20);
+        assertEquals(20, gauge.get());
+        gauge.set(3);
+        assertEquals(3, gauge.get());
+    }
+
+    @Test
+    public void concurrentMax_keepsLargestValue() throws Exception {
+        final Gauge gauge = new Gauge("test");
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // interleaved values, the overall maximum comes from the last thread
+                    for (int i = 0; i < VALUES; i++) {
+                        gauge.max((long) i * THREADS + offset);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals((long) (VALUES - 1) * THREADS + THREADS - 1, gauge.get());
+    }
+}
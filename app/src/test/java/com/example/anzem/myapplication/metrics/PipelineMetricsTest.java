@@ -0,0 +1,46 @@
+package com.example.anzem.myapplication.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PipelineMetrics}.
+ */
+public class PipelineMetricsTest {
+
+    private static long valueOf(String snapshot, String name) {
+        for (String line : snapshot.split("\n")) {
+            String[] parts = line.split(" ");
+            if (parts[0].equals(name)) {
+                return Long.parseLong(parts[1]);
+            }
+        }
+        fail("missing " + name);
+        return -1;
+    }
+
+    @Test
+    public void snapshot_listsEveryMetric() {
+        String snapshot = PipelineMetrics.snapshot(1234);
+
+        assertEquals(1234, valueOf(snapshot, "timestamp_ms"));
+        valueOf(snapshot, "socket_reads");
+        valueOf(snapshot, "midi_write_max_nanos");
+        valueOf(snapshot, "connected");
+    }
+
+    @Test
+    public void recordMidiWrite_updatesCountTotalAndMax() {
+        long writes = PipelineMetrics.MIDI_WRITES.get();
+        long nanos = PipelineMetrics.MIDI_WRITE_NANOS.get();
+
+        PipelineMetrics.recordMidiWrite(1000);
+        PipelineMetrics.recordMidiWrite(Long.MAX_VALUE / 4);
+
+        String snapshot = PipelineMetrics.snapshot(0);
+        assertEquals(writes + 2, valueOf(snapshot, "midi_writes"));
+        assertEquals(nanos + 1000 + Long.MAX_VALUE / 4, valueOf(snapshot, "midi_write_nanos"));
+        assertEquals(Long.MAX_VALUE / 4, valueOf(snapshot, "midi_write_max_nanos"));
+    }
+}
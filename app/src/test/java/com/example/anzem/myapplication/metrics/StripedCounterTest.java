@@ -0,0 +1,56 @@
+package com.example.anzem.myapplication.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StripedCounter}.
+ */
+public class StripedCounterTest {
+
+    private static final int THREADS = 16;
+    private static final int INCREMENTS = 100000;
+
+    @Test
+    public void singleThread_sumsAllUpdates() {
+        StripedCounter counter = new StripedCounter("test");
+        counter.increment();
+        counter.add(41);
+        assertEquals(42, counter.get());
+        assertEquals("test", counter.getName());
+    }
+
+    @Test
+    public void concurrentUpdates_sumIsExact() throws Exception {
+        final StripedCounter counter = new StripedCounter("test");
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int delta = t + 1;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < INCREMENTS; i++) {
+                        counter.add(delta);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // sum of deltas 1..THREADS, each added INCREMENTS times
+        long expected = (long) THREADS * (THREADS + 1) / 2 * INCREMENTS;
+        assertEquals(expected, counter.get());
+    }
+}